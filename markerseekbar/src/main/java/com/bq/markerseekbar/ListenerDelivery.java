@@ -0,0 +1,315 @@
+package com.bq.markerseekbar;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.view.Choreographer;
+import android.widget.SeekBar;
+import android.widget.SeekBar.OnSeekBarChangeListener;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * How {@link MarkerSeekBar} delivers changes to the user listener,
+ * see {@link MarkerSeekBar#setOnSeekBarChangeListener(OnSeekBarChangeListener, ListenerDelivery)}.
+ * <p/>
+ * Except for {@link #immediate()}, intermediate progress values are coalesced and only the latest
+ * one is delivered. In every mode {@link OnSeekBarChangeListener#onStopTrackingTouch(SeekBar)}
+ * arrives after the final progress value.
+ * <p/>
+ * Deliveries hold no state, so the same instance can be shared by any number of bars.
+ */
+public abstract class ListenerDelivery {
+
+    private static final ListenerDelivery IMMEDIATE = new ListenerDelivery() {
+        @Override
+        OnSeekBarChangeListener wrap(OnSeekBarChangeListener listener) {
+            return listener;
+        }
+    };
+
+    private static final ListenerDelivery PER_FRAME = new ListenerDelivery() {
+        @Override
+        OnSeekBarChangeListener wrap(OnSeekBarChangeListener listener) {
+            return new ThrottledListener(listener, true, 0);
+        }
+    };
+
+    ListenerDelivery() {
+    }
+
+    /** Every callback is forwarded synchronously. This is the default. */
+    public static ListenerDelivery immediate() {
+        return IMMEDIATE;
+    }
+
+    /** Deliver at most one progress change per frame, with the latest value. */
+    public static ListenerDelivery perFrame() {
+        return PER_FRAME;
+    }
+
+    /**
+     * Deliver at most one progress change every <code>intervalMillis</code>, with the latest value.
+     * The first change after an idle period is delivered right away, so 0 delivers every change.
+     * Use {@link #perFrame()} to follow the display refresh instead.
+     */
+    public static ListenerDelivery atRate(final long intervalMillis) {
+        if (intervalMillis < 0) throw new IllegalArgumentException("intervalMillis < 0: " + intervalMillis);
+        return new ListenerDelivery() {
+            @Override
+            OnSeekBarChangeListener wrap(OnSeekBarChangeListener listener) {
+                return new ThrottledListener(listener, false, intervalMillis);
+            }
+        };
+    }
+
+    /**
+     * Deliver every callback on the given executor, one at a time and in order.
+     * Progress changes not yet delivered are replaced by newer ones.
+     * <p/>
+     * Callbacks receive the {@link SeekBar} from a different thread, don't touch the view there.
+     */
+    public static ListenerDelivery onExecutor(@NonNull final Executor executor) {
+        return new ListenerDelivery() {
+            @Override
+            OnSeekBarChangeListener wrap(OnSeekBarChangeListener listener) {
+                return new ExecutorListener(listener, executor);
+            }
+        };
+    }
+
+    /** Wrap the user listener, called from the main thread. */
+    abstract OnSeekBarChangeListener wrap(OnSeekBarChangeListener listener);
+
+    /**
+     * Drop anything not yet delivered by a listener returned from {@link #wrap(OnSeekBarChangeListener)},
+     * so a replaced listener gets no stale callbacks. Called from the main thread.
+     */
+    static void cancelPending(OnSeekBarChangeListener wrapped) {
+        if (wrapped instanceof PendingDelivery) ((PendingDelivery) wrapped).cancelPending();
+    }
+
+    /**
+     * Deliver right away what a main thread listener is holding back, used on detach.
+     * The listener stays installed, so it must not miss the end of a gesture.
+     */
+    static void flushPending(OnSeekBarChangeListener wrapped) {
+        if (wrapped instanceof PendingDelivery) ((PendingDelivery) wrapped).flushPending();
+    }
+
+    private interface PendingDelivery {
+        void cancelPending();
+
+        void flushPending();
+    }
+
+    /** Coalesces progress changes on the main thread, by frame or by time. */
+    private static final class ThrottledListener
+            implements OnSeekBarChangeListener, PendingDelivery, Runnable, Choreographer.FrameCallback {
+
+        private final OnSeekBarChangeListener listener;
+        private final boolean perFrame;
+        private final long intervalMillis;
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        private boolean pending;
+        private boolean scheduled;
+        private SeekBar pendingSeekBar;
+        private int pendingProgress;
+        private boolean pendingFromUser;
+        private long lastDeliveryTime = Long.MIN_VALUE / 2;
+
+        ThrottledListener(OnSeekBarChangeListener listener, boolean perFrame, long intervalMillis) {
+            this.listener = listener;
+            this.perFrame = perFrame;
+            this.intervalMillis = intervalMillis;
+        }
+
+        @Override
+        public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+            pendingSeekBar = seekBar;
+            pendingProgress = progress;
+            pendingFromUser = fromUser;
+            pending = true;
+            if (scheduled) return;
+
+            if (perFrame) {
+                scheduled = true;
+                Choreographer.getInstance().postFrameCallback(this);
+            } else {
+                long wait = lastDeliveryTime + intervalMillis - SystemClock.uptimeMillis();
+                if (wait <= 0) {
+                    flush();
+                } else {
+                    scheduled = true;
+                    handler.postDelayed(this, wait);
+                }
+            }
+        }
+
+        @Override
+        public void onStartTrackingTouch(SeekBar seekBar) {
+            flush();
+            listener.onStartTrackingTouch(seekBar);
+        }
+
+        @Override
+        public void onStopTrackingTouch(SeekBar seekBar) {
+            flush();
+            listener.onStopTrackingTouch(seekBar);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            scheduled = false;
+            flush();
+        }
+
+        @Override
+        public void run() {
+            scheduled = false;
+            flush();
+        }
+
+        @Override
+        public void flushPending() {
+            flush();
+        }
+
+        @Override
+        public void cancelPending() {
+            unschedule();
+            pending = false;
+            pendingSeekBar = null;
+        }
+
+        private void unschedule() {
+            if (!scheduled) return;
+            scheduled = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+            handler.removeCallbacks(this);
+        }
+
+        private void flush() {
+            unschedule();
+            if (!pending) return;
+            pending = false;
+            lastDeliveryTime = SystemClock.uptimeMillis();
+            SeekBar seekBar = pendingSeekBar;
+            pendingSeekBar = null;
+            listener.onProgressChanged(seekBar, pendingProgress, pendingFromUser);
+        }
+    }
+
+    /** Serial delivery on an executor, keeping only the latest of consecutive progress changes. */
+    private static final class ExecutorListener implements OnSeekBarChangeListener, PendingDelivery, Runnable {
+
+        private static final int EVENT_PROGRESS = 0;
+        private static final int EVENT_START = 1;
+        private static final int EVENT_STOP = 2;
+
+        private final OnSeekBarChangeListener listener;
+        private final Executor executor;
+
+        //Guarded by queue
+        private final ArrayDeque<Event> queue = new ArrayDeque<>();
+        private boolean draining;
+
+        ExecutorListener(OnSeekBarChangeListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        @Override
+        public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+            enqueue(EVENT_PROGRESS, seekBar, progress, fromUser);
+        }
+
+        @Override
+        public void onStartTrackingTouch(SeekBar seekBar) {
+            enqueue(EVENT_START, seekBar, 0, false);
+        }
+
+        @Override
+        public void onStopTrackingTouch(SeekBar seekBar) {
+            enqueue(EVENT_STOP, seekBar, 0, false);
+        }
+
+        private void enqueue(int type, SeekBar seekBar, int progress, boolean fromUser) {
+            synchronized (queue) {
+                Event last = queue.peekLast();
+                if (type == EVENT_PROGRESS && last != null && last.type == EVENT_PROGRESS) {
+                    //Superseded, the listener only sees the latest value
+                    last.progress = progress;
+                    last.fromUser = fromUser;
+                } else {
+                    queue.addLast(new Event(type, seekBar, progress, fromUser));
+                }
+                if (draining) return;
+                draining = true;
+            }
+            try {
+                executor.execute(this);
+            } catch (RuntimeException e) {
+                //Rejected, keep the events so the next one retries instead of queueing forever
+                synchronized (queue) {
+                    draining = false;
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public void flushPending() {
+            //Already on its way, the queue only holds the latest value between start and stop events
+        }
+
+        @Override
+        public void cancelPending() {
+            synchronized (queue) {
+                queue.clear();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Event event;
+                synchronized (queue) {
+                    event = queue.pollFirst();
+                    if (event == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                switch (event.type) {
+                    case EVENT_PROGRESS:
+                        listener.onProgressChanged(event.seekBar, event.progress, event.fromUser);
+                        break;
+                    case EVENT_START:
+                        listener.onStartTrackingTouch(event.seekBar);
+                        break;
+                    case EVENT_STOP:
+                        listener.onStopTrackingTouch(event.seekBar);
+                        break;
+                }
+            }
+        }
+
+        private static final class Event {
+            final int type;
+            final SeekBar seekBar;
+            int progress;
+            boolean fromUser;
+
+            Event(int type, SeekBar seekBar, int progress, boolean fromUser) {
+                this.type = type;
+                this.seekBar = seekBar;
+                this.progress = progress;
+                this.fromUser = fromUser;
+            }
+        }
+    }
+}
@@ -6,15 +6,11 @@ import android.animation.ObjectAnimator;
 import android.animation.TypeEvaluator;
 import android.animation.ValueAnimator;
 import android.content.Context;
-import android.content.res.TypedArray;
-import android.graphics.Color;
 import android.graphics.Paint;
-import android.os.Build;
 import android.support.annotation.FloatRange;
 import android.support.annotation.NonNull;
 import android.support.v7.widget.AppCompatSeekBar;
 import android.util.AttributeSet;
-import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
@@ -36,7 +32,7 @@ import android.widget.TextView;
  * and everything should work as expected.
  * <p/>
  * You can show custom text using {@link ProgressAdapter} and modify colors and other marker
- * properties in {@link MarkerView}.
+ * properties in {@link MarkerView}, or all at once with a shared {@link MarkerStyle}.
  * <ul>
  * <p/>
  * <li>attr {@link com.bq.markerseekbar.R.styleable#MarkerSeekBar_showMarkerOnTouch}. * Automatic toggle. Default true.</li>
@@ -65,7 +61,12 @@ public class MarkerSeekBar extends AppCompatSeekBar implements SeekBar.OnSeekBar
     //Can't use IntArrayEvaluator since it requires API 21
     private static final IntArrayEvaluatorCompat INT_ARRAY_EVALUATOR_COMPAT = new IntArrayEvaluatorCompat();
 
+    //Last known location while the popup shows, refreshed only on layout, scroll and pre-draw signals
     private final int[] windowLocation = new int[2];
+    private boolean windowLocationValid;
+    private boolean popupLayoutPending;
+    private final ViewTreeObserver.OnPreDrawListener preDrawListener;
+    private final ViewTreeObserver.OnScrollChangedListener scrollChangedListener;
     private PopupWindow popupWindow;
     private final ViewGroup popUpRootView;
     private final MarkerView markerView;
@@ -78,16 +79,24 @@ public class MarkerSeekBar extends AppCompatSeekBar implements SeekBar.OnSeekBar
     private int popupVerticalOffset;
     private int popupHorizontalOffset;
     private int popupWindowSize;
+    private MarkerStyle markerStyle;
 
-    private ValueAnimator popUpPositionAnimator;
+    private final ObjectAnimator markerAnimator;
+    private boolean markerVisible;
+
+    private final ValueAnimator popUpPositionAnimator;
     private int[] popUpHolderStartAux = new int[2];
     private int[] popUpHolderEndAux = new int[2];
     private int[][] popUpHolderStartAndEndAux = new int[2][1];
 
+    //Current popup position, animated with smooth tracking, and where it is heading
     private int popUpX = Integer.MIN_VALUE;
     private int popUpY = Integer.MIN_VALUE;
+    private int popUpTargetX = Integer.MIN_VALUE;
+    private int popUpTargetY = Integer.MIN_VALUE;
 
     private ProgressAdapter progressAdapter = new ProgressAdapter.Default();
+    private OnSeekBarChangeListener deliveredListener;
 
     public MarkerSeekBar(Context context) {
         this(context, null);
@@ -127,39 +136,69 @@ public class MarkerSeekBar extends AppCompatSeekBar implements SeekBar.OnSeekBar
         });
         popUpRootView.addView(markerTextView);
 
-        //XML Parameters
-        final float density = context.getResources().getDisplayMetrics().density;
-        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.MarkerSeekBar);
+        popupWindow = new PopupWindow(popUpRootView, 0, 0, false);
+        popupWindow.setClippingEnabled(false); //Allow to draw outside screen
 
-        showMarkerOnTouch = a.getBoolean(R.styleable.MarkerSeekBar_showMarkerOnTouch, true);
-        smoothTracking = a.getBoolean(R.styleable.MarkerSeekBar_smoothTracking, false);
+        //Animators are reused, show / hide storms and drags should not allocate
+        markerAnimator = ObjectAnimator.ofFloat(this, "markerAnimationFrame", 0, 1);
+        markerAnimator.addListener(new AnimatorListenerAdapter() {
+            private boolean canceled;
 
-        popupWindowSize = a.getDimensionPixelSize(R.styleable.MarkerSeekBar_markerPopUpWindowSize, (int) (80 * density));
-        markerView.onSizeChanged(popupWindowSize, popupWindowSize, 0, 0);
+            @Override
+            public void onAnimationStart(Animator animation) {
+                canceled = false;
+                if (markerVisible) showPopUp();
+            }
 
-        markerView.setMarkerColor(a.getColor(R.styleable.MarkerSeekBar_markerColor, getAccentColor()));
-        markerView.setShadowRadius(a.getDimension(R.styleable.MarkerSeekBar_markerShadowRadius, 4 * density));
-        markerView.setShadowColor(a.getColor(R.styleable.MarkerSeekBar_markerShadowColor, Color.parseColor("#331d1d1d")));
+            @Override
+            public void onAnimationCancel(Animator animation) {
+                canceled = true;
+            }
 
-        markerTextView.setTextColor(a.getColor(R.styleable.MarkerSeekBar_markerTextColor, Color.WHITE));
-        markerTextView.setTextAppearance(context,
-                a.getResourceId(R.styleable.MarkerSeekBar_markerTextAppearance, R.style.Widget_MarkerSeekBar_TextAppearance));
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                if (!canceled && !markerVisible) hidePopUp();
+            }
+        });
 
-        //In material SeekBar thumbs is off by 8.5 dp and looks like there
-        //is no way to get the real center from the thumb drawable.
-        popupHorizontalOffset = a.getDimensionPixelSize(R.styleable.MarkerSeekBar_markerHorizontalOffset, (int) (-8.5 * density));
-        popupVerticalOffset = a.getDimensionPixelSize(R.styleable.MarkerSeekBar_markerVerticalOffset, (int) (-6 * density));
+        popUpPositionAnimator = new ValueAnimator();
+        popUpPositionAnimator.setInterpolator(POP_UP_POSITION_INTERPOLATOR);
+        popUpPositionAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+            @Override
+            public void onAnimationUpdate(ValueAnimator animation) {
+                int[] pos = (int[]) animation.getAnimatedValue();
+                popUpX = pos[0];
+                popUpY = pos[1];
+                popupWindow.update(pos[0], pos[1], popupWindowSize, popupWindowSize);
+            }
+        });
 
-        a.recycle();
+        //Follow the bar when it moves, and apply progress changes, in the same frame
+        preDrawListener = new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                //Progress changes are applied once per frame, with the latest thumb position
+                if (popupLayoutPending) updatePopupLayout();
+                followWindowLocation();
+                return true;
+            }
+        };
+        scrollChangedListener = new ViewTreeObserver.OnScrollChangedListener() {
+            @Override
+            public void onScrollChanged() {
+                followWindowLocation();
+            }
+        };
 
-        popupWindow = new PopupWindow(popUpRootView, popupWindowSize, popupWindowSize, false);
-        popupWindow.setClippingEnabled(false); //Allow to draw outside screen
+        //XML Parameters, shared between bars with the same theme and style
+        setMarkerStyle(MarkerStyle.obtain(context, attrs));
     }
 
     @Override
     public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
         markerTextView.setText(progressAdapter.toText(progress));
-        updatePopupLayout();
+        //The thumb move invalidates the bar, the next pre-draw places the popup
+        popupLayoutPending = popupWindow.isShowing();
     }
 
     @Override
@@ -179,20 +218,69 @@ public class MarkerSeekBar extends AppCompatSeekBar implements SeekBar.OnSeekBar
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
         super.onLayout(changed, left, top, right, bottom);
-        if (changed) updatePopupLayout();
+        if (changed) followWindowLocation();
     }
 
-    private void updatePopupLayout() {
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getViewTreeObserver().addOnPreDrawListener(preDrawListener);
+        getViewTreeObserver().addOnScrollChangedListener(scrollChangedListener);
+    }
+
+    /**
+     * Query the window location and snap the popup only if its target moved since the last layout,
+     * either because the bar moved or because a resize moved the thumb.
+     * Layout passes that leave both in place keep smooth tracking animations running.
+     */
+    private void followWindowLocation() {
+        //Nothing to follow, showPopUp() will query the location again
+        if (!popupWindow.isShowing()) return;
+
+        int oldTargetX = popUpTargetX;
+        int oldTargetY = popUpTargetY;
         getLocationInWindow(windowLocation);
+        windowLocationValid = true;
+        computePopupTarget();
+        if (popUpTargetX == oldTargetX && popUpTargetY == oldTargetY) return;
 
-        int oldX = popUpX;
-        int oldY = popUpY;
+        updatePopupLayout(true);
+    }
 
+    /** Where the popup belongs for the cached window location and the current thumb position. */
+    private void computePopupTarget() {
         int thumbCenterX = getThumb() == null ? 0 : getThumb().getBounds().centerX();
         int thumbHeight = getThumb() == null ? 0 : getThumb().getIntrinsicHeight();
 
-        popUpX = windowLocation[0] + thumbCenterX + getPaddingLeft() + popupHorizontalOffset - popupWindowSize / 2;
-        popUpY = windowLocation[1] + thumbHeight / 2 + popupVerticalOffset - popupWindowSize;
+        popUpTargetX = windowLocation[0] + thumbCenterX + getPaddingLeft() + popupHorizontalOffset - popupWindowSize / 2;
+        popUpTargetY = windowLocation[1] + thumbHeight / 2 + popupVerticalOffset - popupWindowSize;
+    }
+
+    private void updatePopupLayout() {
+        updatePopupLayout(false);
+    }
+
+    /**
+     * @param snap Move the popup without smooth tracking, used when the bar itself moved
+     *             so the marker stays attached to the thumb.
+     */
+    private void updatePopupLayout(boolean snap) {
+        popupLayoutPending = false;
+
+        //Nothing to place, showPopUp() will call this again
+        if (!popupWindow.isShowing()) return;
+
+        if (!windowLocationValid) {
+            getLocationInWindow(windowLocation);
+            windowLocationValid = true;
+        }
+
+        int oldX = popUpX;
+        int oldY = popUpY;
+
+        computePopupTarget();
+        popUpX = popUpTargetX;
+        popUpY = popUpTargetY;
 
         final int dx = oldX - popUpX;
         final int dy = oldY - popUpY;
@@ -200,14 +288,16 @@ public class MarkerSeekBar extends AppCompatSeekBar implements SeekBar.OnSeekBar
         final float proportion = distance / getWidth();
 
         if (!smoothTracking //No smooth tracking
+                || snap //The bar moved
                 || proportion < 0.10 //Small movements snap
                 || (oldX == popUpX && oldY == popUpY) //Same position, call update in case the size changed
                 || oldX == Integer.MIN_VALUE //First time showing
                 || oldY == Integer.MIN_VALUE) {
+            popUpPositionAnimator.cancel();
             popupWindow.update(popUpX, popUpY, popupWindowSize, popupWindowSize);
         } else {
             //Stop the current animation, if any
-            if (popUpPositionAnimator != null) popUpPositionAnimator.cancel();
+            popUpPositionAnimator.cancel();
 
             popUpHolderStartAux[0] = oldX;
             popUpHolderStartAux[1] = oldY;
@@ -218,17 +308,8 @@ public class MarkerSeekBar extends AppCompatSeekBar implements SeekBar.OnSeekBar
             popUpHolderStartAndEndAux[0] = popUpHolderStartAux;
             popUpHolderStartAndEndAux[1] = popUpHolderEndAux;
 
-            popUpPositionAnimator = ValueAnimator.ofObject(INT_ARRAY_EVALUATOR_COMPAT, popUpHolderStartAndEndAux);
-            popUpPositionAnimator.setInterpolator(POP_UP_POSITION_INTERPOLATOR);
-            popUpPositionAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-                @Override
-                public void onAnimationUpdate(ValueAnimator animation) {
-                    int[] pos = (int[]) animation.getAnimatedValue();
-                    popUpX = pos[0];
-                    popUpY = pos[1];
-                    popupWindow.update(pos[0], pos[1], popupWindowSize, popupWindowSize);
-                }
-            });
+            popUpPositionAnimator.setObjectValues((Object[]) popUpHolderStartAndEndAux);
+            popUpPositionAnimator.setEvaluator(INT_ARRAY_EVALUATOR_COMPAT);
             popUpPositionAnimator.setDuration((long) (proportion * 333));
             popUpPositionAnimator.start();
         }
@@ -237,10 +318,22 @@ public class MarkerSeekBar extends AppCompatSeekBar implements SeekBar.OnSeekBar
     /**
      * The listener provided is wrapped in a {@link WrappedSeekBarListener},
      * this class requires the callbacks produced by the SeekBar.
+     * Every callback is delivered synchronously, see {@link ListenerDelivery#immediate()}.
      */
     @Override
     public void setOnSeekBarChangeListener(OnSeekBarChangeListener listener) {
-        super.setOnSeekBarChangeListener(new WrappedSeekBarListener(listener));
+        setOnSeekBarChangeListener(listener, ListenerDelivery.immediate());
+    }
+
+    /**
+     * Same as {@link #setOnSeekBarChangeListener(OnSeekBarChangeListener)} but controlling how the
+     * listener receives the callbacks, use it to coalesce progress changes when handling them is expensive.
+     * The marker itself is always updated synchronously.
+     */
+    public void setOnSeekBarChangeListener(OnSeekBarChangeListener listener, @NonNull ListenerDelivery delivery) {
+        ListenerDelivery.cancelPending(deliveredListener);
+        deliveredListener = listener == null ? null : delivery.wrap(listener);
+        super.setOnSeekBarChangeListener(new WrappedSeekBarListener(deliveredListener));
     }
 
     /**
@@ -251,10 +344,14 @@ public class MarkerSeekBar extends AppCompatSeekBar implements SeekBar.OnSeekBar
         if (markerTextView == null || isInEditMode()) return;
         Paint p = markerTextView.getPaint();
         int textSize = (int) p.measureText(text);
-        if (textSize > 2 * markerView.getCircleRad()) {
-            float diff = textSize - 2 * markerView.getCircleRad();
-            popupWindowSize += diff * Math.sqrt(2);
-            updatePopupLayout();
+        if (textSize > markerStyle.getMaxTextWidth()) {
+            //Grow from the style size, so measuring the same text again is a no-op
+            float diff = textSize - markerStyle.getMaxTextWidth();
+            int size = (int) (markerStyle.getPopupWindowSize() + diff * Math.sqrt(2));
+            if (size > popupWindowSize) {
+                popupWindowSize = size;
+                updatePopupLayout();
+            }
         }
     }
 
@@ -263,18 +360,8 @@ public class MarkerSeekBar extends AppCompatSeekBar implements SeekBar.OnSeekBar
      * This action cancels if {@link #hideMarker(boolean, int)} (boolean, int)} is called.
      */
     public void showMarker(boolean animated, int delay) {
-        ObjectAnimator anim = ObjectAnimator.ofFloat(this, "markerAnimationFrame", markerAnimationFrame, 1);
-        anim.setAutoCancel(true);
-        anim.setInterpolator(ANIMATION_SHOW_INTERPOLATOR);
-        anim.setDuration(animated ? ANIMATION_SHOW_DURATION : 0);
-        anim.setStartDelay(delay);
-        anim.addListener(new AnimatorListenerAdapter() {
-            @Override
-            public void onAnimationStart(Animator animation) {
-                showPopUp();
-            }
-        });
-        anim.start();
+        markerVisible = true;
+        animateMarker(1, ANIMATION_SHOW_INTERPOLATOR, animated ? ANIMATION_SHOW_DURATION : 0, delay);
     }
 
     /**
@@ -282,23 +369,17 @@ public class MarkerSeekBar extends AppCompatSeekBar implements SeekBar.OnSeekBar
      * This action cancels if {@link #showMarker(boolean, int)} is called.
      */
     public void hideMarker(boolean animated, int delay) {
-        ObjectAnimator anim = ObjectAnimator.ofFloat(this, "markerAnimationFrame", markerAnimationFrame, 0);
-        anim.setAutoCancel(true);
-        anim.setInterpolator(ANIMATION_HIDE_INTERPOLATOR);
-        anim.setDuration(animated ? ANIMATION_HIDE_DURATION : 0);
-        anim.setStartDelay(delay);
-        anim.addListener(new AnimatorListenerAdapter() {
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                hidePopUp();
-            }
+        markerVisible = false;
+        animateMarker(0, ANIMATION_HIDE_INTERPOLATOR, animated ? ANIMATION_HIDE_DURATION : 0, delay);
+    }
 
-            @Override
-            public void onAnimationCancel(Animator animation) {
-                hidePopUp();
-            }
-        });
-        anim.start();
+    private void animateMarker(float targetFrame, Interpolator interpolator, long duration, long delay) {
+        markerAnimator.cancel();
+        markerAnimator.setFloatValues(markerAnimationFrame, targetFrame);
+        markerAnimator.setInterpolator(interpolator);
+        markerAnimator.setDuration(duration);
+        markerAnimator.setStartDelay(delay);
+        markerAnimator.start();
     }
 
     //#########################
@@ -324,6 +405,31 @@ public class MarkerSeekBar extends AppCompatSeekBar implements SeekBar.OnSeekBar
         }
     }
 
+    /**
+     * Apply all the marker properties at once, including {@link #setShowMarkerOnTouch(boolean)}
+     * and the popup offsets. Styles are immutable, so the same instance can be shared by any number of bars.
+     */
+    public void setMarkerStyle(@NonNull MarkerStyle markerStyle) {
+        this.markerStyle = markerStyle;
+
+        showMarkerOnTouch = markerStyle.isShowMarkerOnTouch();
+        smoothTracking = markerStyle.isSmoothTracking();
+
+        popupWindowSize = markerStyle.getPopupWindowSize();
+        markerView.setMarkerStyle(markerStyle);
+
+        markerTextView.setTextColor(markerStyle.getTextColor());
+        markerTextView.setTextAppearance(getContext(), markerStyle.getTextAppearance());
+
+        popupHorizontalOffset = markerStyle.getHorizontalOffset();
+        popupVerticalOffset = markerStyle.getVerticalOffset();
+
+        popupWindow.setWidth(popupWindowSize);
+        popupWindow.setHeight(popupWindowSize);
+        ensureMarkerSize(progressAdapter.onMeasureLongestText(getMax()));
+        updatePopupLayout();
+    }
+
     public void setPopupHorizontalOffset(int popupHorizontalOffset) {
         this.popupHorizontalOffset = popupHorizontalOffset;
         updatePopupLayout();
@@ -352,6 +458,10 @@ public class MarkerSeekBar extends AppCompatSeekBar implements SeekBar.OnSeekBar
         this.showMarkerOnTouch = showMarkerOnTouch;
     }
 
+    public MarkerStyle getMarkerStyle() {
+        return markerStyle;
+    }
+
     public float getMarkerAnimationFrame() {
         return markerAnimationFrame;
     }
@@ -384,27 +494,22 @@ public class MarkerSeekBar extends AppCompatSeekBar implements SeekBar.OnSeekBar
     }
 
     private void hidePopUp() {
+        popUpPositionAnimator.cancel();
         popUpX = popUpY = Integer.MIN_VALUE;
+        popUpTargetX = popUpTargetY = Integer.MIN_VALUE;
+        windowLocationValid = false;
         popupWindow.dismiss();
     }
 
     @Override
     protected void onDetachedFromWindow() {
+        getViewTreeObserver().removeOnPreDrawListener(preDrawListener);
+        getViewTreeObserver().removeOnScrollChangedListener(scrollChangedListener);
         super.onDetachedFromWindow();
-        popupWindow.dismiss();
-    }
-
-    private int getAccentColor() {
-        int colorAttr;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            colorAttr = android.R.attr.colorAccent;
-        } else {
-            //Get colorAccent defined for AppCompat
-            colorAttr = getContext().getResources().getIdentifier("colorAccent", "attr", getContext().getPackageName());
-        }
-        TypedValue outValue = new TypedValue();
-        getContext().getTheme().resolveAttribute(colorAttr, outValue, true);
-        return outValue.data;
+        markerVisible = false;
+        markerAnimator.cancel();
+        hidePopUp();
+        ListenerDelivery.flushPending(deliveredListener);
     }
 
     public interface ProgressAdapter /* My name is OptimusSeekBar */ {
@@ -0,0 +1,357 @@
+package com.bq.markerseekbar;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Color;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.StyleRes;
+import android.util.AttributeSet;
+import android.util.SparseArray;
+import android.util.TypedValue;
+
+import java.util.WeakHashMap;
+
+/**
+ * Immutable set of marker properties shared by {@link MarkerSeekBar} instances.
+ * <p/>
+ * Styles resolved from xml are cached per configuration, theme and style resource, so inflating
+ * many bars with the same look only resolves the attributes once. The cache is safe to use from
+ * background inflaters. Use {@link Builder} to create one in code
+ * and {@link MarkerSeekBar#setMarkerStyle(MarkerStyle)} to apply it.
+ * <p/>
+ * Besides the raw attributes the style holds the marker geometry derived from them,
+ * see {@link #getCircleRad()}, {@link #getPadding()} and {@link #getCircleCenterY()}.
+ */
+public final class MarkerStyle {
+
+    private static final float SQRT_2 = 1.4142135f;
+
+    //Keyed by resources first, themes from different configurations can be equal. Guarded by itself
+    private static final WeakHashMap<Resources, ConfigurationStyles> CACHE = new WeakHashMap<>();
+
+    private final boolean showMarkerOnTouch;
+    private final boolean smoothTracking;
+    private final int textAppearance;
+    private final int textColor;
+    private final int markerColor;
+    private final float shadowRadius;
+    private final int shadowColor;
+    private final int popupWindowSize;
+    private final int horizontalOffset;
+    private final int verticalOffset;
+
+    //Derived
+    private final float padding;
+    private final float rad;
+    private final int circleCenterY;
+
+    private MarkerStyle(Builder builder) {
+        this.showMarkerOnTouch = builder.showMarkerOnTouch;
+        this.smoothTracking = builder.smoothTracking;
+        this.textAppearance = builder.textAppearance;
+        this.textColor = builder.textColor;
+        this.markerColor = builder.markerColor;
+        this.shadowRadius = builder.shadowRadius;
+        this.shadowColor = builder.shadowColor;
+        this.popupWindowSize = builder.popupWindowSize;
+        this.horizontalOffset = builder.horizontalOffset;
+        this.verticalOffset = builder.verticalOffset;
+
+        this.padding = shadowRadius;
+        this.rad = computeCircleRad(popupWindowSize, popupWindowSize, padding);
+        this.circleCenterY = computeCircleCenterY(popupWindowSize, rad, padding);
+    }
+
+    /**
+     * Resolve the style for the given xml attributes. The result is cached and shared
+     * when the attributes only reference a style resource, inline marker attributes
+     * always resolve a new instance.
+     */
+    @NonNull
+    public static MarkerStyle obtain(@NonNull Context context, @Nullable AttributeSet attrs) {
+        if (attrs != null && hasInlineAttributes(attrs)) {
+            return resolve(context, attrs);
+        }
+        int styleRes = attrs == null ? 0 : attrs.getStyleAttribute();
+        return obtain(context, styleRes, attrs);
+    }
+
+    /** Resolve the style from a style resource, 0 for the theme defaults. The result is cached. */
+    @NonNull
+    public static MarkerStyle fromStyle(@NonNull Context context, @StyleRes int styleRes) {
+        return obtain(context, styleRes, null);
+    }
+
+    private static MarkerStyle obtain(Context context, int styleRes, AttributeSet attrs) {
+        SparseArray<MarkerStyle> themeStyles = getThemeStyles(context);
+        MarkerStyle style;
+        synchronized (CACHE) {
+            style = themeStyles.get(styleRes);
+        }
+        if (style != null) return style;
+
+        //Resolved outside the lock, racing inflaters at worst resolve the same style twice
+        if (attrs != null) {
+            style = resolve(context, attrs);
+        } else {
+            style = resolve(context, context.obtainStyledAttributes(styleRes, R.styleable.MarkerSeekBar));
+        }
+        synchronized (CACHE) {
+            themeStyles.put(styleRes, style);
+        }
+        return style;
+    }
+
+    private static SparseArray<MarkerStyle> getThemeStyles(Context context) {
+        Resources resources = context.getResources();
+        Resources.Theme theme = context.getTheme();
+        synchronized (CACHE) {
+            //Resources can be updated in place on configuration changes, drop what was resolved before
+            ConfigurationStyles configurationStyles = CACHE.get(resources);
+            if (configurationStyles == null || !configurationStyles.configuration.equals(resources.getConfiguration())) {
+                configurationStyles = new ConfigurationStyles(resources.getConfiguration());
+                CACHE.put(resources, configurationStyles);
+            }
+            SparseArray<MarkerStyle> themeStyles = configurationStyles.themes.get(theme);
+            if (themeStyles == null) {
+                themeStyles = new SparseArray<>();
+                configurationStyles.themes.put(theme, themeStyles);
+            }
+            return themeStyles;
+        }
+    }
+
+    private static MarkerStyle resolve(Context context, AttributeSet attrs) {
+        return resolve(context, context.obtainStyledAttributes(attrs, R.styleable.MarkerSeekBar));
+    }
+
+    private static MarkerStyle resolve(Context context, TypedArray a) {
+        Builder builder = new Builder(context);
+
+        builder.showMarkerOnTouch(a.getBoolean(R.styleable.MarkerSeekBar_showMarkerOnTouch, builder.showMarkerOnTouch))
+                .smoothTracking(a.getBoolean(R.styleable.MarkerSeekBar_smoothTracking, builder.smoothTracking))
+                .popupWindowSize(a.getDimensionPixelSize(R.styleable.MarkerSeekBar_markerPopUpWindowSize, builder.popupWindowSize))
+                .markerColor(a.getColor(R.styleable.MarkerSeekBar_markerColor, builder.markerColor))
+                .shadowRadius(a.getDimension(R.styleable.MarkerSeekBar_markerShadowRadius, builder.shadowRadius))
+                .shadowColor(a.getColor(R.styleable.MarkerSeekBar_markerShadowColor, builder.shadowColor))
+                .textColor(a.getColor(R.styleable.MarkerSeekBar_markerTextColor, builder.textColor))
+                .textAppearance(a.getResourceId(R.styleable.MarkerSeekBar_markerTextAppearance, builder.textAppearance))
+                .horizontalOffset(a.getDimensionPixelSize(R.styleable.MarkerSeekBar_markerHorizontalOffset, builder.horizontalOffset))
+                .verticalOffset(a.getDimensionPixelSize(R.styleable.MarkerSeekBar_markerVerticalOffset, builder.verticalOffset));
+
+        a.recycle();
+        return builder.build();
+    }
+
+    private static boolean hasInlineAttributes(AttributeSet attrs) {
+        for (int i = 0; i < attrs.getAttributeCount(); i++) {
+            int attr = attrs.getAttributeNameResource(i);
+            for (int styleable : R.styleable.MarkerSeekBar) {
+                if (attr == styleable) return true;
+            }
+        }
+        return false;
+    }
+
+    private static int getAccentColor(Context context) {
+        int colorAttr;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            colorAttr = android.R.attr.colorAccent;
+        } else {
+            //Get colorAccent defined for AppCompat
+            colorAttr = context.getResources().getIdentifier("colorAccent", "attr", context.getPackageName());
+        }
+        TypedValue outValue = new TypedValue();
+        context.getTheme().resolveAttribute(colorAttr, outValue, true);
+        return outValue.data;
+    }
+
+    /** The biggest circle that fits the rotated tear in a w x h view, leaving room for the shadow. */
+    static float computeCircleRad(float width, float height, float padding) {
+        float halfSide = Math.min(width / 2, height / 2);
+        //Subtract the distance from the enclosing square to the circle, after rotation
+        //We have to make sure the shape fits
+        return (0.5f * SQRT_2 * halfSide) - padding;
+    }
+
+    static int computeCircleCenterY(float height, float rad, float padding) {
+        //The view is bottom aligned, so the visual center is the center of the
+        //rotated square with side = rad
+        return (int) (height - rad * SQRT_2 - padding);
+    }
+
+    //#########################
+    // Properties
+    //#########################
+
+    public boolean isShowMarkerOnTouch() {
+        return showMarkerOnTouch;
+    }
+
+    public boolean isSmoothTracking() {
+        return smoothTracking;
+    }
+
+    public int getTextAppearance() {
+        return textAppearance;
+    }
+
+    public int getTextColor() {
+        return textColor;
+    }
+
+    public int getMarkerColor() {
+        return markerColor;
+    }
+
+    public float getShadowRadius() {
+        return shadowRadius;
+    }
+
+    public int getShadowColor() {
+        return shadowColor;
+    }
+
+    public int getPopupWindowSize() {
+        return popupWindowSize;
+    }
+
+    public int getHorizontalOffset() {
+        return horizontalOffset;
+    }
+
+    public int getVerticalOffset() {
+        return verticalOffset;
+    }
+
+    /** Space left around the marker for the shadow. */
+    public float getPadding() {
+        return padding;
+    }
+
+    /** The marker circle radius for {@link #getPopupWindowSize()}. */
+    public float getCircleRad() {
+        return rad;
+    }
+
+    /** The visual center of the tear for {@link #getPopupWindowSize()}. */
+    public int getCircleCenterY() {
+        return circleCenterY;
+    }
+
+    /** The widest text that fits inside the marker without growing the popup. */
+    public float getMaxTextWidth() {
+        return 2 * rad;
+    }
+
+    /** Styles resolved for one {@link Configuration}, by theme and style resource. */
+    private static final class ConfigurationStyles {
+
+        final Configuration configuration;
+        final WeakHashMap<Resources.Theme, SparseArray<MarkerStyle>> themes = new WeakHashMap<>();
+
+        ConfigurationStyles(Configuration configuration) {
+            this.configuration = new Configuration(configuration);
+        }
+    }
+
+    /**
+     * Builds a {@link MarkerStyle} in code. Defaults match the xml defaults
+     * documented in {@link MarkerSeekBar}.
+     */
+    public static final class Builder {
+
+        private boolean showMarkerOnTouch = true;
+        private boolean smoothTracking = false;
+        private int textAppearance = R.style.Widget_MarkerSeekBar_TextAppearance;
+        private int textColor = Color.WHITE;
+        private int markerColor;
+        private float shadowRadius;
+        private int shadowColor = Color.parseColor("#331d1d1d");
+        private int popupWindowSize;
+        private int horizontalOffset;
+        private int verticalOffset;
+
+        public Builder(@NonNull Context context) {
+            final float density = context.getResources().getDisplayMetrics().density;
+            markerColor = getAccentColor(context);
+            shadowRadius = 4 * density;
+            popupWindowSize = (int) (80 * density);
+            //In material SeekBar thumbs is off by 8.5 dp and looks like there
+            //is no way to get the real center from the thumb drawable.
+            horizontalOffset = (int) (-8.5 * density);
+            verticalOffset = (int) (-6 * density);
+        }
+
+        public Builder(@NonNull MarkerStyle style) {
+            showMarkerOnTouch = style.showMarkerOnTouch;
+            smoothTracking = style.smoothTracking;
+            textAppearance = style.textAppearance;
+            textColor = style.textColor;
+            markerColor = style.markerColor;
+            shadowRadius = style.shadowRadius;
+            shadowColor = style.shadowColor;
+            popupWindowSize = style.popupWindowSize;
+            horizontalOffset = style.horizontalOffset;
+            verticalOffset = style.verticalOffset;
+        }
+
+        public Builder showMarkerOnTouch(boolean showMarkerOnTouch) {
+            this.showMarkerOnTouch = showMarkerOnTouch;
+            return this;
+        }
+
+        public Builder smoothTracking(boolean smoothTracking) {
+            this.smoothTracking = smoothTracking;
+            return this;
+        }
+
+        public Builder textAppearance(@StyleRes int textAppearance) {
+            this.textAppearance = textAppearance;
+            return this;
+        }
+
+        public Builder textColor(int textColor) {
+            this.textColor = textColor;
+            return this;
+        }
+
+        public Builder markerColor(int markerColor) {
+            this.markerColor = markerColor;
+            return this;
+        }
+
+        public Builder shadowRadius(float shadowRadius) {
+            this.shadowRadius = shadowRadius;
+            return this;
+        }
+
+        public Builder shadowColor(int shadowColor) {
+            this.shadowColor = shadowColor;
+            return this;
+        }
+
+        public Builder popupWindowSize(int popupWindowSize) {
+            this.popupWindowSize = popupWindowSize;
+            return this;
+        }
+
+        public Builder horizontalOffset(int horizontalOffset) {
+            this.horizontalOffset = horizontalOffset;
+            return this;
+        }
+
+        public Builder verticalOffset(int verticalOffset) {
+            this.verticalOffset = verticalOffset;
+            return this;
+        }
+
+        public MarkerStyle build() {
+            return new MarkerStyle(this);
+        }
+    }
+}
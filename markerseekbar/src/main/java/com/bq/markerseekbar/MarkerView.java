@@ -19,11 +19,14 @@ import android.view.View;
  */
 public final class MarkerView extends View {
 
-    private static final float SQRT_2 = 1.4142135f;
+    private static final PorterDuffXfermode CLEAR_XFERMODE = new PorterDuffXfermode(PorterDuff.Mode.CLEAR);
 
     //Aux
     private final Matrix matrix = new Matrix();
     private final RectF rect = new RectF();
+    private final float[] radii = new float[8];
+    private final Paint shadowBuildPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path shadowBuildPath = new Path();
 
     //Drawing
     private final Paint shadowPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
@@ -61,11 +64,13 @@ public final class MarkerView extends View {
 
         if (isInEditMode()) return;
 
-        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        Paint paint = shadowBuildPaint;
+        paint.reset();
+        paint.setAntiAlias(true);
         paint.setColor(markerPaint.getColor());
         paint.setStyle(Paint.Style.FILL);
         Canvas canvas = new Canvas(shadowBitmap);
-        Path shadowPath = new Path();
+        Path shadowPath = shadowBuildPath;
 
         setLayerType(LAYER_TYPE_SOFTWARE, null);
 
@@ -76,7 +81,7 @@ public final class MarkerView extends View {
         paint.setShadowLayer(0, 0, 0, 0);
 
         //Remove the inside
-        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+        paint.setXfermode(CLEAR_XFERMODE);
         computeConvexPath(shadowPath, rad);
         canvas.drawPath(shadowPath, paint);
 
@@ -96,8 +101,9 @@ public final class MarkerView extends View {
 
         //The tear is a rounded square with 0 radius in the top left corner,
         rect.set(0, 0, 2 * rad, 2 * rad);
-        float[] rads = new float[]{0, 0, rad, rad, rad, rad, rad, rad};
-        path.addRoundRect(rect, rads, Path.Direction.CCW);
+        radii[0] = radii[1] = 0;
+        for (int i = 2; i < radii.length; i++) radii[i] = rad;
+        path.addRoundRect(rect, radii, Path.Direction.CCW);
 
         //Align to bottom and center
         matrix.postRotate(45 + 180, 0, 0);
@@ -107,16 +113,40 @@ public final class MarkerView extends View {
 
     @Override
     protected void onSizeChanged(int w, int h, int oldW, int oldH) {
+        //Already measured for this size, avoid rebuilding the shadow cache
+        if (w == width && h == height && padding == shadowRadius && shadowBitmap != null) return;
         this.width = w;
         this.height = h;
-        this.padding = shadowRadius;
-        float halfSide = Math.min(width / 2, height / 2);
-        //Subtract the distance from the enclosing square to the circle, after rotation
-        //We have to make sure the shape fits
-        rad = (0.5f * SQRT_2 * halfSide) - padding;
+        computeGeometry();
+        invalidateShadowBitmap();
+    }
 
+    private void computeGeometry() {
+        padding = shadowRadius;
+        rad = MarkerStyle.computeCircleRad(width, height, padding);
         computeConvexPath(markerPath, rad);
+    }
+
+    /**
+     * Apply all the marker properties of the style at once,
+     * so the geometry and the draw cache are computed a single time.
+     */
+    public void setMarkerStyle(MarkerStyle style) {
+        markerPaint.setColor(style.getMarkerColor());
+        shadowColor = style.getShadowColor();
+        shadowRadius = style.getShadowRadius();
+        int size = style.getPopupWindowSize();
+        if ((width == 0 && height == 0) || (width == size && height == size)) {
+            //Use the precomputed geometry
+            width = height = size;
+            padding = style.getPadding();
+            rad = style.getCircleRad();
+            computeConvexPath(markerPath, rad);
+        } else {
+            computeGeometry();
+        }
         invalidateShadowBitmap();
+        requestLayout();
     }
 
     /**
@@ -124,12 +154,14 @@ public final class MarkerView extends View {
      * use {@link #setShadowColorFilter(ColorFilter)} instead for better performance.
      */
     public void setShadowColor(int shadowColor) {
+        if (this.shadowColor == shadowColor) return;
         this.shadowColor = shadowColor;
         invalidateShadowBitmap();
     }
 
     /** Update the marker shadow. The draw cache will be rebuilt. */
     public void setShadowRadius(float shadowRadius) {
+        if (this.shadowRadius == shadowRadius) return;
         this.shadowRadius = shadowRadius;
         onSizeChanged((int) width, (int) height, 0, 0);
         requestLayout();
@@ -159,9 +191,7 @@ public final class MarkerView extends View {
 
     /** The visual center of the tear */
     public int getCircleCenterY() {
-        //The view is bottom aligned, so the visual center is the center of the
-        //rotated square with side = rad
-        return (int) (height - rad * SQRT_2 - padding);
+        return MarkerStyle.computeCircleCenterY(height, rad, padding);
     }
 
     public float getCircleRad() {
@@ -0,0 +1,307 @@
+package com.bq.markerseekbar;
+
+import android.app.Activity;
+import android.widget.FrameLayout;
+import android.widget.SeekBar;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Coalescing and ordering of {@link ListenerDelivery} modes. The main looper is paused,
+ * so nothing is delivered until the test advances the clock.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ListenerDeliveryTest {
+
+    private static final int FRAME_MS = 16;
+
+    private SeekBar seekBar;
+    private RecordingListener recorder;
+
+    @Before
+    public void setUp() {
+        ShadowLooper.pauseMainLooper();
+        seekBar = new SeekBar(RuntimeEnvironment.application);
+        recorder = new RecordingListener();
+    }
+
+    //#########################
+    // Per frame
+    //#########################
+
+    @Test
+    public void perFrameDeliversTheLatestValueOncePerFrame() {
+        SeekBar.OnSeekBarChangeListener listener = ListenerDelivery.perFrame().wrap(recorder);
+
+        for (int progress = 1; progress <= 10; progress++) {
+            listener.onProgressChanged(seekBar, progress, true);
+        }
+        recorder.assertEvents();
+
+        ShadowLooper.idleMainLooper(FRAME_MS);
+        recorder.assertEvents("progress 10");
+    }
+
+    @Test
+    public void perFrameStopArrivesAfterTheFinalValue() {
+        SeekBar.OnSeekBarChangeListener listener = ListenerDelivery.perFrame().wrap(recorder);
+
+        listener.onStartTrackingTouch(seekBar);
+        for (int progress = 1; progress <= 5; progress++) {
+            listener.onProgressChanged(seekBar, progress, true);
+        }
+        listener.onStopTrackingTouch(seekBar);
+        ShadowLooper.idleMainLooper(FRAME_MS);
+
+        recorder.assertEvents("start", "progress 5", "stop");
+    }
+
+    //#########################
+    // At rate
+    //#########################
+
+    @Test
+    public void atRateDeliversTheFirstChangeAndThenTheLatestPerInterval() {
+        SeekBar.OnSeekBarChangeListener listener = ListenerDelivery.atRate(100).wrap(recorder);
+
+        listener.onProgressChanged(seekBar, 1, true);
+        listener.onProgressChanged(seekBar, 2, true);
+        listener.onProgressChanged(seekBar, 3, true);
+        recorder.assertEvents("progress 1");
+
+        ShadowLooper.idleMainLooper(100);
+        recorder.assertEvents("progress 1", "progress 3");
+    }
+
+    @Test
+    public void atRateStopArrivesAfterTheFinalValue() {
+        SeekBar.OnSeekBarChangeListener listener = ListenerDelivery.atRate(100).wrap(recorder);
+
+        listener.onStartTrackingTouch(seekBar);
+        for (int progress = 1; progress <= 5; progress++) {
+            listener.onProgressChanged(seekBar, progress, true);
+        }
+        listener.onStopTrackingTouch(seekBar);
+        ShadowLooper.idleMainLooper(1000);
+
+        recorder.assertEvents("start", "progress 1", "progress 5", "stop");
+    }
+
+    @Test
+    public void atRateZeroDeliversEveryChange() {
+        SeekBar.OnSeekBarChangeListener listener = ListenerDelivery.atRate(0).wrap(recorder);
+
+        listener.onProgressChanged(seekBar, 1, true);
+        listener.onProgressChanged(seekBar, 2, true);
+
+        recorder.assertEvents("progress 1", "progress 2");
+    }
+
+    //#########################
+    // Executor
+    //#########################
+
+    @Test
+    public void directExecutorDeliversEverythingInOrder() {
+        SeekBar.OnSeekBarChangeListener listener = ListenerDelivery.onExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }).wrap(recorder);
+
+        listener.onStartTrackingTouch(seekBar);
+        listener.onProgressChanged(seekBar, 1, true);
+        listener.onProgressChanged(seekBar, 2, true);
+        listener.onStopTrackingTouch(seekBar);
+
+        recorder.assertEvents("start", "progress 1", "progress 2", "stop");
+    }
+
+    @Test
+    public void busyExecutorDropsSupersededValues() {
+        QueueExecutor executor = new QueueExecutor();
+        SeekBar.OnSeekBarChangeListener listener = ListenerDelivery.onExecutor(executor).wrap(recorder);
+
+        listener.onStartTrackingTouch(seekBar);
+        for (int progress = 1; progress <= 10; progress++) {
+            listener.onProgressChanged(seekBar, progress, true);
+        }
+        listener.onStopTrackingTouch(seekBar);
+        listener.onStartTrackingTouch(seekBar);
+        listener.onProgressChanged(seekBar, 11, true);
+        listener.onProgressChanged(seekBar, 12, true);
+        executor.runAll();
+
+        recorder.assertEvents("start", "progress 10", "stop", "start", "progress 12");
+    }
+
+    @Test
+    public void rejectedExecutionDoesNotLoseTheStop() {
+        QueueExecutor executor = new QueueExecutor();
+        SeekBar.OnSeekBarChangeListener listener = ListenerDelivery.onExecutor(executor).wrap(recorder);
+
+        executor.reject = true;
+        try {
+            listener.onProgressChanged(seekBar, 1, true);
+            fail("Expected the executor to reject");
+        } catch (RejectedExecutionException expected) {
+        }
+
+        executor.reject = false;
+        listener.onProgressChanged(seekBar, 2, true);
+        listener.onStopTrackingTouch(seekBar);
+        executor.runAll();
+
+        recorder.assertEvents("progress 2", "stop");
+    }
+
+    //#########################
+    // Replacing and detaching
+    //#########################
+
+    @Test
+    public void cancelledDeliveryDropsPendingValues() {
+        SeekBar.OnSeekBarChangeListener perFrame = ListenerDelivery.perFrame().wrap(recorder);
+        SeekBar.OnSeekBarChangeListener atRate = ListenerDelivery.atRate(100).wrap(recorder);
+        QueueExecutor executor = new QueueExecutor();
+        SeekBar.OnSeekBarChangeListener onExecutor = ListenerDelivery.onExecutor(executor).wrap(recorder);
+
+        perFrame.onProgressChanged(seekBar, 1, true);
+        atRate.onProgressChanged(seekBar, 2, true);
+        atRate.onProgressChanged(seekBar, 3, true);
+        onExecutor.onProgressChanged(seekBar, 4, true);
+        ListenerDelivery.cancelPending(perFrame);
+        ListenerDelivery.cancelPending(atRate);
+        ListenerDelivery.cancelPending(onExecutor);
+        ShadowLooper.idleMainLooper(1000);
+        executor.runAll();
+
+        recorder.assertEvents("progress 2");
+    }
+
+    @Test
+    public void replacedListenerGetsNoStaleProgress() {
+        MarkerSeekBar bar = new MarkerSeekBar(RuntimeEnvironment.application);
+        bar.setOnSeekBarChangeListener(recorder, ListenerDelivery.perFrame());
+
+        bar.setProgress(5);
+        bar.setOnSeekBarChangeListener(null);
+        ShadowLooper.idleMainLooper(FRAME_MS);
+
+        recorder.assertEvents();
+    }
+
+    @Test
+    public void detachAfterStopStillDeliversOnTheExecutor() {
+        QueueExecutor executor = new QueueExecutor();
+        FrameLayout root = attachedRoot();
+        MarkerSeekBar bar = new MarkerSeekBar(root.getContext());
+        root.addView(bar);
+        bar.setOnSeekBarChangeListener(recorder, ListenerDelivery.onExecutor(executor));
+
+        drag(bar, 7);
+        root.removeView(bar);
+        executor.runAll();
+
+        recorder.assertEvents("start", "progress 7", "stop");
+    }
+
+    @Test
+    public void detachFlushesTheValuePendingForTheNextFrame() {
+        FrameLayout root = attachedRoot();
+        MarkerSeekBar bar = new MarkerSeekBar(root.getContext());
+        root.addView(bar);
+        bar.setOnSeekBarChangeListener(recorder, ListenerDelivery.perFrame());
+
+        bar.setProgress(7);
+        root.removeView(bar);
+        recorder.assertEvents("progress 7");
+
+        ShadowLooper.idleMainLooper(FRAME_MS);
+        recorder.assertEvents("progress 7");
+    }
+
+    //#########################
+    // Utility
+    //#########################
+
+    private static FrameLayout attachedRoot() {
+        Activity activity = Robolectric.setupActivity(Activity.class);
+        FrameLayout root = new FrameLayout(activity);
+        activity.setContentView(root);
+        return root;
+    }
+
+    /** Drive the listener installed in the bar like a touch gesture ending at the given progress. */
+    private static void drag(MarkerSeekBar bar, int progress) {
+        SeekBar.OnSeekBarChangeListener installed = ReflectionHelpers.getField(bar, "mOnSeekBarChangeListener");
+        installed.onStartTrackingTouch(bar);
+        for (int i = 1; i <= progress; i++) {
+            bar.setProgress(i);
+        }
+        installed.onStopTrackingTouch(bar);
+    }
+
+    private static class RecordingListener implements SeekBar.OnSeekBarChangeListener {
+
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+            events.add("progress " + progress);
+        }
+
+        @Override
+        public void onStartTrackingTouch(SeekBar seekBar) {
+            events.add("start");
+        }
+
+        @Override
+        public void onStopTrackingTouch(SeekBar seekBar) {
+            events.add("stop");
+        }
+
+        void assertEvents(String... expected) {
+            assertEquals(Arrays.asList(expected), events);
+        }
+    }
+
+    /** Runs nothing until asked, like a busy background thread. */
+    private static class QueueExecutor implements Executor {
+
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        boolean reject;
+
+        @Override
+        public void execute(Runnable command) {
+            if (reject) throw new RejectedExecutionException();
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.poll().run();
+            }
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package com.bq.markerseekbar;
+
+import android.animation.Animator;
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.support.v7.widget.AppCompatSeekBar;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.FrameLayout;
+import android.widget.PopupWindow;
+import android.widget.SeekBar;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Budgets for the {@link MarkerSeekBar} hot paths. A regression in any of them fails the build.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class MarkerSeekBarBudgetTest {
+
+    private static final int BAR_WIDTH = 400;
+    private static final int FRAME_MS = 16;
+    private static final int TICKS = 1000;
+    //Extra bytes per tick allowed over a plain SeekBar updating a TextView
+    private static final int ALLOCATION_SLACK_PER_TICK = 256;
+
+    private Activity activity;
+    private FrameLayout root;
+    private CountingMarkerSeekBar bar;
+    private CountingPopupWindow popupWindow;
+
+    @Before
+    public void setUp() {
+        activity = Robolectric.setupActivity(Activity.class);
+        root = new FrameLayout(activity);
+        activity.setContentView(root);
+
+        bar = new CountingMarkerSeekBar(activity);
+        bar.setMax(100);
+        root.addView(bar, new FrameLayout.LayoutParams(BAR_WIDTH, ViewGroup.LayoutParams.WRAP_CONTENT));
+        layoutBar();
+
+        popupWindow = new CountingPopupWindow(bar.getPopUpRootView(), bar.getPopupWindow().getWidth());
+        ReflectionHelpers.setField(bar, "popupWindow", popupWindow);
+    }
+
+    //#########################
+    // onProgressChanged
+    //#########################
+
+    @Test
+    public void hiddenMarkerDoesNotTouchThePopup() {
+        bar.setShowMarkerOnTouch(false);
+        drag(0, 100);
+
+        assertEquals(0, popupWindow.updates);
+        assertEquals(0, bar.locationQueries);
+    }
+
+    @Test
+    public void hiddenMarkerAllocatesLikeAPlainSeekBar() {
+        final TextView text = new TextView(activity);
+        SeekBar plain = new AppCompatSeekBar(activity);
+        plain.setMax(100);
+        plain.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                text.setText(String.valueOf(progress));
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+            }
+        });
+
+        //Warm up both paths so class loading is not measured
+        measureTickAllocations(plain);
+        measureTickAllocations(bar);
+
+        long plainBytes = measureTickAllocations(plain);
+        long barBytes = measureTickAllocations(bar);
+
+        assertTrue("MarkerSeekBar allocated " + barBytes + " bytes vs " + plainBytes + " for a plain SeekBar",
+                barBytes <= plainBytes + (long) TICKS * ALLOCATION_SLACK_PER_TICK);
+    }
+
+    @Test
+    public void popupUpdatesAtMostOncePerFrame() {
+        showMarker();
+        popupWindow.updates = 0;
+
+        final int ticksPerFrame = 3;
+        int progress = 0;
+        for (int frame = 0; frame < 30; frame++) {
+            int before = popupWindow.updates;
+            for (int i = 0; i < ticksPerFrame; i++) {
+                bar.setProgress(++progress);
+            }
+            nextFrame();
+            assertTrue("Frame " + frame + " updated the popup " + (popupWindow.updates - before) + " times",
+                    popupWindow.updates - before <= 1);
+        }
+    }
+
+    @Test
+    public void stillFramesDoNotUpdateThePopup() {
+        showMarker();
+        bar.setProgress(50);
+        nextFrame();
+        popupWindow.updates = 0;
+
+        for (int frame = 0; frame < 30; frame++) {
+            nextFrame();
+        }
+
+        assertEquals(0, popupWindow.updates);
+    }
+
+    //#########################
+    // Smooth tracking
+    //#########################
+
+    @Test
+    public void smoothTrackingUpdatesOncePerFrame() {
+        bar.setMarkerStyle(new MarkerStyle.Builder(bar.getMarkerStyle()).smoothTracking(true).build());
+        showMarker();
+        Animator positionAnimator = ReflectionHelpers.getField(bar, "popUpPositionAnimator");
+
+        for (int jump = 0; jump < 10; jump++) {
+            bar.setProgress(jump % 2 == 0 ? 100 : 0);
+            for (int frame = 0; frame < 30; frame++) {
+                int before = popupWindow.updates;
+                nextFrame();
+                assertTrue(popupWindow.updates - before <= 1);
+            }
+        }
+
+        assertFalse(positionAnimator.isRunning());
+    }
+
+    @Test
+    public void smoothTrackingOffNeverAnimates() {
+        showMarker();
+        Animator positionAnimator = ReflectionHelpers.getField(bar, "popUpPositionAnimator");
+
+        for (int jump = 0; jump < 10; jump++) {
+            bar.setProgress(jump % 2 == 0 ? 100 : 0);
+            assertFalse(positionAnimator.isRunning());
+        }
+    }
+
+    //#########################
+    // Window location
+    //#########################
+
+    @Test
+    public void progressChangesReuseTheCachedLocation() {
+        showMarker();
+        int queries = bar.locationQueries;
+
+        for (int progress = 0; progress <= 100; progress++) {
+            bar.setProgress(progress);
+        }
+
+        assertEquals(queries, bar.locationQueries);
+    }
+
+    @Test
+    public void movedBarSnapsThePopupInTheSameFrame() {
+        showMarker();
+        popupWindow.updates = 0;
+
+        root.setTranslationY(50);
+        root.getViewTreeObserver().dispatchOnPreDraw();
+
+        assertEquals(1, popupWindow.updates);
+    }
+
+    @Test
+    public void relayoutInPlaceKeepsSmoothTracking() {
+        bar.setMarkerStyle(new MarkerStyle.Builder(bar.getMarkerStyle()).smoothTracking(true).build());
+        showMarker();
+        Animator positionAnimator = ReflectionHelpers.getField(bar, "popUpPositionAnimator");
+
+        bar.setProgress(100);
+        root.getViewTreeObserver().dispatchOnPreDraw();
+        assertTrue(positionAnimator.isRunning());
+
+        //Same bounds, like a sibling TextView relayout during the drag
+        layoutBar();
+        root.getViewTreeObserver().dispatchOnPreDraw();
+
+        assertTrue(positionAnimator.isRunning());
+    }
+
+    @Test
+    public void resizeInPlaceMovesThePopupWithTheThumb() {
+        showMarker();
+        bar.setProgress(50);
+        nextFrame();
+        popupWindow.updates = 0;
+
+        //Same left and top, like an animated end margin, the thumb moves with the width
+        bar.measure(View.MeasureSpec.makeMeasureSpec(BAR_WIDTH / 2, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(bar.getHeight(), View.MeasureSpec.EXACTLY));
+        bar.layout(0, 0, BAR_WIDTH / 2, bar.getHeight());
+
+        assertEquals(1, popupWindow.updates);
+    }
+
+    //#########################
+    // setMax
+    //#########################
+
+    @Test
+    public void setMaxGrowsThePopupOnce() {
+        bar.setProgressAdapter(new LongTextAdapter());
+
+        bar.setMax(1000);
+        int grownSize = ReflectionHelpers.getField(bar, "popupWindowSize");
+        bar.setMax(100);
+        bar.setMax(1000);
+        bar.ensureMarkerSize(new LongTextAdapter().onMeasureLongestText(1000));
+
+        assertTrue(grownSize > bar.getMarkerStyle().getPopupWindowSize());
+        assertEquals(grownSize, (int) ReflectionHelpers.getField(bar, "popupWindowSize"));
+    }
+
+    @Test
+    public void setMaxToTheSameValueDoesNotUpdateThePopup() {
+        showMarker();
+        popupWindow.updates = 0;
+
+        for (int i = 0; i < 100; i++) {
+            bar.setMax(100);
+        }
+
+        assertEquals(0, popupWindow.updates);
+    }
+
+    //#########################
+    // Show / hide
+    //#########################
+
+    @Test
+    public void showHideStormEndingHiddenDismissesThePopup() {
+        Animator markerAnimator = ReflectionHelpers.getField(bar, "markerAnimator");
+
+        for (int i = 0; i < 50; i++) {
+            bar.showMarker(true, 333);
+            bar.hideMarker(true, 0);
+        }
+        ShadowLooper.idleMainLooper(1000);
+
+        assertEquals(1, markerAnimator.getListeners().size());
+        assertFalse(markerAnimator.isRunning());
+        assertFalse(popupWindow.isShowing());
+        assertEquals(0, bar.getMarkerAnimationFrame(), 0);
+    }
+
+    @Test
+    public void showHideStormEndingShownKeepsThePopup() {
+        Animator markerAnimator = ReflectionHelpers.getField(bar, "markerAnimator");
+
+        for (int i = 0; i < 50; i++) {
+            bar.hideMarker(true, 0);
+            bar.showMarker(true, 333);
+        }
+        ShadowLooper.idleMainLooper(1000);
+
+        assertEquals(1, markerAnimator.getListeners().size());
+        assertFalse(markerAnimator.isRunning());
+        assertTrue(popupWindow.isShowing());
+        assertEquals(1, bar.getMarkerAnimationFrame(), 0);
+    }
+
+    //#########################
+    // MarkerView shadow cache
+    //#########################
+
+    @Test
+    public void shadowIsBuiltOnceDuringADrag() {
+        showMarker();
+        MarkerView markerView = bar.getMarkerView();
+        layoutMarker(markerView);
+        Bitmap shadow = drawShadow(markerView);
+
+        drag(0, 100);
+        markerView.setShadowColor(bar.getMarkerStyle().getShadowColor());
+        markerView.setShadowRadius(bar.getMarkerStyle().getShadowRadius());
+        layoutMarker(markerView);
+
+        assertSame(shadow, drawShadow(markerView));
+    }
+
+    @Test
+    public void shadowIsRebuiltOncePerRealChange() {
+        showMarker();
+        MarkerView markerView = bar.getMarkerView();
+        layoutMarker(markerView);
+        Bitmap shadow = drawShadow(markerView);
+
+        markerView.setShadowColor(Color.RED);
+        Bitmap rebuilt = drawShadow(markerView);
+
+        assertNotSame(shadow, rebuilt);
+        assertSame(rebuilt, drawShadow(markerView));
+    }
+
+    //#########################
+    // Detach
+    //#########################
+
+    @Test
+    public void detachLeavesNoAnimatorsOrListeners() {
+        bar.setMarkerStyle(new MarkerStyle.Builder(bar.getMarkerStyle()).smoothTracking(true).build());
+        showMarker();
+        bar.setProgress(0);
+        nextFrame();
+        bar.setProgress(100);
+        root.getViewTreeObserver().dispatchOnPreDraw();
+        bar.hideMarker(true, 0);
+
+        Animator markerAnimator = ReflectionHelpers.getField(bar, "markerAnimator");
+        Animator positionAnimator = ReflectionHelpers.getField(bar, "popUpPositionAnimator");
+        Object preDrawListener = ReflectionHelpers.getField(bar, "preDrawListener");
+        Object scrollChangedListener = ReflectionHelpers.getField(bar, "scrollChangedListener");
+        ViewTreeObserver observer = root.getViewTreeObserver();
+        assertTrue(observerListeners(observer, "mOnPreDrawListeners").contains(preDrawListener));
+        assertTrue(observerListeners(observer, "mOnScrollChangedListeners").contains(scrollChangedListener));
+
+        root.removeView(bar);
+        ShadowLooper.idleMainLooper(1000);
+
+        assertFalse(markerAnimator.isRunning());
+        assertFalse(positionAnimator.isRunning());
+        assertFalse(popupWindow.isShowing());
+        assertEquals(0, bar.getMarkerAnimationFrame(), 0);
+        assertFalse(observerListeners(observer, "mOnPreDrawListeners").contains(preDrawListener));
+        assertFalse(observerListeners(observer, "mOnScrollChangedListeners").contains(scrollChangedListener));
+    }
+
+    //#########################
+    // Utility
+    //#########################
+
+    private void showMarker() {
+        bar.showMarker(false, 0);
+        ShadowLooper.idleMainLooper(1000);
+        assertTrue(popupWindow.isShowing());
+    }
+
+    /** Scripted drag, the same callbacks the SeekBar produces for a touch gesture. */
+    private void drag(int from, int to) {
+        bar.onStartTrackingTouch(bar);
+        for (int progress = from; progress <= to; progress++) {
+            bar.setProgress(progress);
+            nextFrame();
+        }
+        bar.onStopTrackingTouch(bar);
+    }
+
+    private void nextFrame() {
+        ShadowLooper.idleMainLooper(FRAME_MS);
+        root.getViewTreeObserver().dispatchOnPreDraw();
+    }
+
+    /** The listeners registered in one of the observer's internal copy-on-write arrays. */
+    private static List<?> observerListeners(ViewTreeObserver observer, String field) {
+        Object listeners = ReflectionHelpers.getField(observer, field);
+        if (listeners == null) return Collections.emptyList();
+        return ReflectionHelpers.getField(listeners, "mData");
+    }
+
+    private static long measureTickAllocations(SeekBar seekBar) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long start = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < TICKS; i++) {
+            seekBar.setProgress(i % 100);
+        }
+        return threads.getThreadAllocatedBytes(threadId) - start;
+    }
+
+    private static Bitmap drawShadow(MarkerView markerView) {
+        Bitmap target = Bitmap.createBitmap(markerView.getWidth(), markerView.getHeight(), Bitmap.Config.ARGB_8888);
+        markerView.draw(new Canvas(target));
+        return ReflectionHelpers.getField(markerView, "shadowBitmap");
+    }
+
+    private void layoutBar() {
+        bar.measure(View.MeasureSpec.makeMeasureSpec(BAR_WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        bar.layout(0, 0, BAR_WIDTH, bar.getMeasuredHeight());
+    }
+
+    /** Same size the popup window gives the marker. */
+    private void layoutMarker(MarkerView markerView) {
+        int size = bar.getMarkerStyle().getPopupWindowSize();
+        markerView.measure(View.MeasureSpec.makeMeasureSpec(size, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(size, View.MeasureSpec.EXACTLY));
+        markerView.layout(0, 0, size, size);
+    }
+
+    private static class CountingMarkerSeekBar extends MarkerSeekBar {
+
+        int locationQueries;
+
+        CountingMarkerSeekBar(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void getLocationInWindow(int[] location) {
+            locationQueries++;
+            super.getLocationInWindow(location);
+        }
+    }
+
+    private static class CountingPopupWindow extends PopupWindow {
+
+        int updates;
+
+        CountingPopupWindow(View contentView, int size) {
+            super(contentView, size, size, false);
+            setClippingEnabled(false);
+        }
+
+        @Override
+        public void update(int x, int y, int width, int height) {
+            updates++;
+            super.update(x, y, width, height);
+        }
+    }
+
+    private static class LongTextAdapter implements MarkerSeekBar.ProgressAdapter {
+
+        @Override
+        public String toText(int progress) {
+            return String.valueOf(progress);
+        }
+
+        @Override
+        public String onMeasureLongestText(int seekBarMax) {
+            //Wider than any default marker, regardless of how text is measured
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < 200; i++) builder.append(seekBarMax);
+            return builder.toString();
+        }
+    }
+}